@@ -0,0 +1,132 @@
+package controller;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import model.DrawAction;
+import model.PresenceState;
+
+/**
+ * Client end of the presence channel. {@link #update} only overwrites the
+ * local slot; a ticker sends it at most once per tick, so fast mouse moves
+ * coalesce instead of queueing.
+ */
+public class PresenceClient {
+    private static final long HEARTBEAT_MS = 1000;
+
+    private final DatagramSocket socket;
+    private final SocketAddress server;
+    private final PresenceState local = new PresenceState();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-send");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean dirty = true;
+    // issued by the server in the join SYNC_RESPONSE; nothing is sent until then
+    private long token;
+    private long lastSent = 0;
+    private long bytesSent, bytesReceived;
+
+    public PresenceClient(String host, int port, String userId) throws IOException {
+        socket = new DatagramSocket();
+        server = new InetSocketAddress(host, port);
+        // only the server may feed us cursors; the OS drops datagrams from anyone else
+        socket.connect(server);
+        local.userId = userId;
+        // start from the clock so a reconnecting user is not ignored as stale
+        local.seq = System.currentTimeMillis();
+    }
+
+    public void start(Consumer<ArrayList<PresenceState>> onReceive) {
+        Thread reader = new Thread(() -> receiveLoop(onReceive), "presence-recv");
+        reader.setDaemon(true);
+        reader.start();
+        ticker.scheduleAtFixedRate(this::flush, 0, PresenceServer.TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void update(int x, int y, boolean onCanvas, boolean drawing,
+            DrawAction.ActionType tool, int color) {
+        local.x = x;
+        local.y = y;
+        local.onCanvas = onCanvas;
+        local.drawing = drawing;
+        local.tool = tool;
+        local.color = color;
+        dirty = true;
+    }
+
+    public synchronized void setToken(long token) {
+        this.token = token;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public void close() {
+        ticker.shutdownNow();
+        socket.close();
+    }
+
+    private void flush() {
+        byte[] packet;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (token == 0 || (!dirty && now - lastSent < HEARTBEAT_MS))
+                return;
+            local.seq++;
+            dirty = false;
+            lastSent = now;
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try {
+                DataOutputStream out = new DataOutputStream(bos);
+                out.writeLong(token);
+                local.write(out);
+            } catch (IOException e) {
+                return;
+            }
+            packet = bos.toByteArray();
+            bytesSent += packet.length;
+        }
+        try {
+            socket.send(new DatagramPacket(packet, packet.length, server));
+        } catch (IOException e) {
+            /* lossy by design, the next tick or heartbeat resends */
+        }
+    }
+
+    private void receiveLoop(Consumer<ArrayList<PresenceState>> onReceive) {
+        byte[] buf = new byte[PresenceServer.MAX_PACKET];
+        while (!socket.isClosed()) {
+            DatagramPacket p = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(p);
+                synchronized (this) {
+                    bytesReceived += p.getLength();
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(p.getData(), 0, p.getLength()));
+                int count = in.readUnsignedShort();
+                ArrayList<PresenceState> states = new ArrayList<>(count);
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < count; i++) {
+                    PresenceState s = PresenceState.read(in);
+                    s.receivedAt = now;
+                    states.add(s);
+                }
+                onReceive.accept(states);
+            } catch (IOException | RuntimeException e) {
+                /* socket closed or bad datagram */
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package controller;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import model.DrawAction;
+import model.Message;
+
+/**
+ * Simulates many users moving their cursors faster than the presence tick and
+ * reports the bandwidth each one used. Each user joins over TCP first to get a
+ * presence token. Run against a live Server; the server prints its own
+ * per-user numbers every few seconds.
+ * Usage: PresenceLoad [host] [port] [users] [seconds]
+ */
+public class PresenceLoad {
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6000;
+        int users = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        ArrayList<PresenceClient> clients = new ArrayList<>();
+        ArrayList<Socket> sessions = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            String name = "load-" + i;
+            Socket s = new Socket(host, port);
+            ObjectOutputStream out = new ObjectOutputStream(s.getOutputStream());
+            ObjectInputStream in = new ObjectInputStream(s.getInputStream());
+            Message init = new Message(Message.MessageType.SYNC_REQUEST);
+            init.senderId = name;
+            out.writeObject(init);
+            out.flush();
+            Message snap = (Message) in.readObject();
+            // keep reading so the server's broadcasts never block on us
+            Thread drain = new Thread(() -> {
+                try {
+                    while (in.readObject() != null) {
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            drain.setDaemon(true);
+            drain.start();
+            sessions.add(s);
+
+            PresenceClient c = new PresenceClient(host, port, name);
+            c.setToken(snap.presenceToken);
+            c.start(states -> {
+            });
+            clients.add(c);
+        }
+
+        // ~120 Hz mouse events per user, well above the 20 Hz tick
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        long moves = 0;
+        while (System.currentTimeMillis() < end) {
+            for (int i = 0; i < users; i++) {
+                double t = moves / 120.0 + i;
+                int x = 350 + (int) (300 * Math.cos(t));
+                int y = 250 + (int) (200 * Math.sin(t));
+                clients.get(i).update(x, y, true, i % 2 == 0, DrawAction.ActionType.FREEHAND, 0);
+            }
+            moves++;
+            Thread.sleep(8);
+        }
+
+        long sent = 0, received = 0;
+        for (PresenceClient c : clients) {
+            sent += c.getBytesSent();
+            received += c.getBytesReceived();
+            c.close();
+        }
+        for (Socket s : sessions)
+            s.close();
+        System.out.println(users + " users, " + moves + " moves each over " + seconds + "s");
+        System.out.println("per user: up " + sent / users / seconds + " B/s, down "
+                + received / users / seconds + " B/s (payload, excluding UDP/IP headers)");
+    }
+}
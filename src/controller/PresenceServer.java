@@ -0,0 +1,201 @@
+package controller;
+
+import java.io.*;
+import java.net.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import model.PresenceState;
+
+/**
+ * Lossy presence channel. Each user has one latest-value slot; updates that
+ * arrive between ticks simply overwrite it, and every tick the changed slots
+ * are fanned out in one datagram per user. Runs on UDP next to the TCP port so
+ * it never waits behind DRAW or SYNC traffic. Only users with a live TCP session
+ * have a slot, keyed by the token handed out at join, which their datagrams
+ * must carry; usernames are not unique, so they cannot be the key.
+ */
+public class PresenceServer {
+    public static final int TICK_MS = 50;
+    // resend every slot this often so lost datagrams heal and idle users stay visible
+    private static final int FULL_REFRESH_TICKS = 20;
+    private static final long EXPIRE_MS = 5000;
+    private static final long STATS_MS = 10000;
+    static final int MAX_PACKET = 1200;
+
+    private final DatagramSocket socket;
+    private final ConcurrentHashMap<Long, Slot> slots = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-tick");
+        t.setDaemon(true);
+        return t;
+    });
+    private int tick = 0;
+    private long lastStats = System.currentTimeMillis();
+
+    private static class Slot {
+        final String userId;
+        final InetAddress host;
+        volatile PresenceState state;
+        volatile SocketAddress address;
+        volatile boolean dirty;
+        volatile long lastHeard;
+        // counters since the last stats line
+        long bytesIn, bytesOut, received, superseded;
+
+        Slot(String userId, InetAddress host) {
+            this.userId = userId;
+            this.host = host;
+        }
+    }
+
+    public PresenceServer(int port) throws SocketException {
+        socket = new DatagramSocket(port);
+    }
+
+    public void start() {
+        Thread reader = new Thread(this::receiveLoop, "presence-recv");
+        reader.setDaemon(true);
+        reader.start();
+        ticker.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        System.out.println("Presence channel on udp port " + socket.getLocalPort());
+    }
+
+    // Opens a slot for a user who just joined over TCP from host; returns the
+    // token their presence datagrams must carry.
+    public long register(String userId, InetAddress host) {
+        Slot slot = new Slot(userId, host);
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0 || slots.putIfAbsent(token, slot) != null);
+        return token;
+    }
+
+    public void remove(long token) {
+        slots.remove(token);
+    }
+
+    private void receiveLoop() {
+        byte[] buf = new byte[MAX_PACKET];
+        while (!socket.isClosed()) {
+            DatagramPacket p = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(p);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(p.getData(), 0, p.getLength()));
+                long token = in.readLong();
+                PresenceState s = PresenceState.read(in);
+                // unknown tokens, other names and other hosts never get a slot or fan-out
+                Slot slot = slots.get(token);
+                if (slot == null || !slot.userId.equals(s.userId) || !slot.host.equals(p.getAddress()))
+                    continue;
+                synchronized (slot) {
+                    slot.bytesIn += p.getLength();
+                    slot.received++;
+                    if (slot.state != null && s.seq <= slot.state.seq)
+                        continue;
+                    slot.address = p.getSocketAddress();
+                    slot.lastHeard = System.currentTimeMillis();
+                    if (slot.dirty)
+                        slot.superseded++;
+                    slot.state = s;
+                    slot.dirty = true;
+                }
+            } catch (IOException | RuntimeException e) {
+                /* malformed or truncated datagram, drop it */
+            }
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            boolean full = ++tick % FULL_REFRESH_TICKS == 0;
+            // slots stay until the TCP session ends; silent ones are just skipped
+            ArrayList<PresenceState> out = new ArrayList<>();
+            ArrayList<Slot> live = new ArrayList<>();
+            // each recipient's own state as collected, so it is not echoed back to them
+            ArrayList<PresenceState> own = new ArrayList<>();
+            for (Slot slot : slots.values()) {
+                synchronized (slot) {
+                    if (slot.state == null || now - slot.lastHeard > EXPIRE_MS)
+                        continue;
+                    if (slot.dirty || full)
+                        out.add(slot.state);
+                    slot.dirty = false;
+                    live.add(slot);
+                    own.add(slot.state);
+                }
+            }
+            if (!out.isEmpty()) {
+                for (int i = 0; i < live.size(); i++) {
+                    Slot dest = live.get(i);
+                    int sent = 0;
+                    for (byte[] packet : encode(out, own.get(i))) {
+                        socket.send(new DatagramPacket(packet, packet.length, dest.address));
+                        sent += packet.length;
+                    }
+                    synchronized (dest) {
+                        dest.bytesOut += sent;
+                    }
+                }
+            }
+            if (now - lastStats >= STATS_MS) {
+                logStats(now - lastStats);
+                lastStats = now;
+            }
+        } catch (Exception e) {
+            System.out.println("Presence tick failed: " + e.getMessage());
+        }
+    }
+
+    // Packs states into as few datagrams as fit under MAX_PACKET, skipping the recipient's own.
+    static List<byte[]> encode(List<PresenceState> states, PresenceState skip) throws IOException {
+        ArrayList<byte[]> packets = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int count = 0;
+        for (PresenceState s : states) {
+            if (s == skip)
+                continue;
+            ByteArrayOutputStream one = new ByteArrayOutputStream();
+            s.write(new DataOutputStream(one));
+            if (count > 0 && 2 + body.size() + one.size() > MAX_PACKET) {
+                packets.add(frame(count, body));
+                body.reset();
+                count = 0;
+            }
+            one.writeTo(body);
+            count++;
+        }
+        if (count > 0)
+            packets.add(frame(count, body));
+        return packets;
+    }
+
+    private static byte[] frame(int count, ByteArrayOutputStream body) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeShort(count);
+        body.writeTo(out);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private void logStats(long elapsedMs) {
+        for (Slot s : slots.values()) {
+            synchronized (s) {
+                if (s.received == 0 && s.bytesOut == 0)
+                    continue;
+                System.out.println("Presence " + s.userId + ": in " + (s.bytesIn * 1000 / elapsedMs)
+                        + " B/s, out " + (s.bytesOut * 1000 / elapsedMs) + " B/s, "
+                        + s.received + " updates (" + s.superseded + " superseded)");
+                s.bytesIn = s.bytesOut = s.received = s.superseded = 0;
+            }
+        }
+    }
+}
@@ -5,13 +5,22 @@ import java.net.*;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import model.CanvasCheckpoint;
 import model.DrawAction;
 import model.Message;
 
 public class Server {
+    // actions newer than this stay as raw ops so they can still be undone
+    private static final int UNDO_HORIZON = 100;
+    // how many actions past the horizon to collect before compacting them
+    private static final int COMPACT_BATCH = 200;
+
     private final int port;
     private final CopyOnWriteArrayList<ClientHandler> clients = new CopyOnWriteArrayList<>();
     private final ArrayList<DrawAction> canvas = new ArrayList<>();
+    private CanvasCheckpoint checkpoint;
+    private boolean compacting = false;
+    private PresenceServer presence;
 
     public Server(int port) {
         this.port = port;
@@ -24,6 +33,8 @@ public class Server {
     }
 
     public void start() throws Exception {
+        presence = new PresenceServer(port);
+        presence.start();
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("Server started on port " + port);
             while (true) {
@@ -44,25 +55,91 @@ public class Server {
         }
     }
 
-    public synchronized void addDrawAction(DrawAction a) {
-        canvas.add(a);
+    // Storing, broadcasting and compacting under one lock keeps every client's
+    // view of the action order identical to canvas.
+    public synchronized void submitDraw(Message m) {
+        canvas.add(m.drawAction);
+        broadcast(m);
+        compactIfNeeded();
     }
 
-    public synchronized ArrayList<DrawAction> getCanvasSnapshot() {
-        return new ArrayList<>(canvas);
+    // Built and written under the monitor, so no broadcast can land on the
+    // client's stream between the two or interleave with the snapshot itself.
+    public synchronized void sendSnapshot(ClientHandler h) throws IOException {
+        Message snap = new Message(Message.MessageType.SYNC_RESPONSE);
+        snap.canvasSnapshot = new ArrayList<>(canvas);
+        snap.checkpoint = checkpoint;
+        snap.presenceToken = h.presenceToken;
+        snap.senderId = "server";
+        h.send(snap);
     }
 
-    public synchronized void clearCanvas() {
+    // Folds actions older than the undo horizon into the checkpoint, so old and
+    // erased strokes stop being stored, sent to joiners and repainted. The
+    // rasterizing and PNG encoding run on their own thread so broadcasts never
+    // wait on them; the result is swapped in by finishCompaction.
+    private void compactIfNeeded() {
+        if (compacting || canvas.size() < UNDO_HORIZON + COMPACT_BATCH)
+            return;
+        compacting = true;
+        CanvasCheckpoint base = checkpoint;
+        ArrayList<DrawAction> old = new ArrayList<>(canvas.subList(0, canvas.size() - UNDO_HORIZON));
+        Thread t = new Thread(() -> {
+            CanvasCheckpoint cp = null;
+            try {
+                cp = CanvasCheckpoint.compact(base, old);
+                cp.encodeTiles();
+            } finally {
+                finishCompaction(base, old, cp);
+            }
+        }, "compaction");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Connected clients are only told where the cut is and fold the same prefix
+    // locally. A clear, or undos reaching past the horizon, while the batch was
+    // being built leave canvas without that prefix; the batch is dropped then.
+    private synchronized void finishCompaction(CanvasCheckpoint base, List<DrawAction> old, CanvasCheckpoint cp) {
+        compacting = false;
+        if (cp == null || checkpoint != base || !startsWith(canvas, old))
+            return;
+        checkpoint = cp;
+        canvas.subList(0, old.size()).clear();
+        System.out.println("Compacted " + old.size() + " actions into checkpoint ("
+                + cp.getTileCount() + " tiles, " + cp.getByteSize() + " bytes)");
+        Message m = new Message(Message.MessageType.CONTROL);
+        m.control = Message.ControlType.COMPACT;
+        m.targetActionId = old.get(old.size() - 1).actionId;
+        m.senderId = "server";
+        broadcast(m);
+        compactIfNeeded();
+    }
+
+    private static boolean startsWith(List<DrawAction> list, List<DrawAction> prefix) {
+        if (list.size() < prefix.size())
+            return false;
+        for (int i = 0; i < prefix.size(); i++)
+            if (list.get(i) != prefix.get(i))
+                return false;
+        return true;
+    }
+
+    public synchronized void submitClear(Message m) {
         canvas.clear();
+        checkpoint = null;
+        broadcast(m);
     }
 
-    public synchronized void undoLast() {
+    public synchronized void submitUndo(Message m) {
         if (!canvas.isEmpty())
             canvas.remove(canvas.size() - 1);
+        broadcast(m);
     }
 
     public synchronized void removeClient(ClientHandler ch) {
         clients.remove(ch);
+        presence.remove(ch.presenceToken);
     }
 
     private static class ClientHandler implements Runnable {
@@ -71,6 +148,7 @@ public class Server {
         private ObjectOutputStream out;
         private ObjectInputStream in;
         private String clientId = "unknown";
+        private long presenceToken;
 
         ClientHandler(Socket s, Server server) {
             this.socket = s;
@@ -92,11 +170,9 @@ public class Server {
                 if (init != null) {
                     clientId = init.senderId != null ? init.senderId : ("client-" + socket.getPort());
                     System.out.println("Client connected: " + clientId);
-                    // respond with canvas snapshot
-                    Message snap = new Message(Message.MessageType.SYNC_RESPONSE);
-                    snap.canvasSnapshot = server.getCanvasSnapshot();
-                    snap.senderId = "server";
-                    send(snap);
+                    // respond with canvas snapshot and this session's presence token
+                    presenceToken = server.presence.register(clientId, socket.getInetAddress());
+                    server.sendSnapshot(this);
 
                     // notify others
                     Message notif = new Message(Message.MessageType.NOTIFICATION);
@@ -116,28 +192,23 @@ public class Server {
                             server.broadcast(m);
                             break;
                         case DRAW:
-                            if (m.drawAction != null) {
-                                server.addDrawAction(m.drawAction);
-                                server.broadcast(m);
+                            if (m.drawAction != null && m.drawAction.clampTo(CanvasCheckpoint.BOARD_WIDTH,
+                                    CanvasCheckpoint.BOARD_HEIGHT)) {
+                                server.submitDraw(m);
                             }
                             break;
                         case CONTROL:
                             if (m.control == Message.ControlType.CLEAR) {
-                                server.clearCanvas();
-                                server.broadcast(m);
+                                server.submitClear(m);
                             } else if (m.control == Message.ControlType.UNDO) {
-                                server.undoLast();
-                                server.broadcast(m);
+                                server.submitUndo(m);
                             } else if (m.control == Message.ControlType.REDO) {
                                 // REDO support would require a redo stack; for brevity we broadcast the request
                                 server.broadcast(m);
                             }
                             break;
                         case SYNC_REQUEST:
-                            Message resp = new Message(Message.MessageType.SYNC_RESPONSE);
-                            resp.canvasSnapshot = server.getCanvasSnapshot();
-                            resp.senderId = "server";
-                            send(resp);
+                            server.sendSnapshot(this);
                             break;
                         default:
                             break;
@@ -6,26 +6,35 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.*;
 
+import model.CanvasCheckpoint;
 import model.DrawAction;
 import model.Message;
+import model.PresenceState;
 import model.WhiteboardModel;
 import view.WhiteboardView;
 
 public class WhiteboardController {
+    private static final long PEER_EXPIRE_MS = 3000;
+
     private final WhiteboardModel model;
     private final WhiteboardView view;
     private final String username;
     private Socket socket;
     private ObjectOutputStream out;
     private ObjectInputStream in;
+    private PresenceClient presence;
+    private final ConcurrentHashMap<String, PresenceState> peers = new ConcurrentHashMap<>();
 
     private DrawAction.ActionType currentTool = DrawAction.ActionType.FREEHAND;
     private Color currentColor = Color.BLACK;
     private float currentStroke = 2.0f;
     private ArrayList<Point> tempPoints = new ArrayList<>();
     private Point startPoint = null;
+    private DrawAction preview = null;
 
     public WhiteboardController(WhiteboardModel model, WhiteboardView view,
             String serverHost, int serverPort, String username) throws Exception {
@@ -34,6 +43,7 @@ public class WhiteboardController {
         this.username = username;
         setupNetwork(serverHost, serverPort);
         wireView();
+        startPresence(serverHost, serverPort);
         startNetworkReader();
         refreshView();
     }
@@ -58,7 +68,9 @@ public class WhiteboardController {
                         break;
                     switch (m.type) {
                         case SYNC_RESPONSE:
-                            model.setSnapshot(m.canvasSnapshot != null ? m.canvasSnapshot : new ArrayList<>());
+                            model.setSnapshot(m.canvasSnapshot != null ? m.canvasSnapshot : new ArrayList<>(), m.checkpoint);
+                            if (m.presenceToken != 0 && presence != null)
+                                presence.setToken(m.presenceToken);
                             refreshView();
                             if (m.text != null)
                                 appendChat("[server] " + m.text);
@@ -77,6 +89,8 @@ public class WhiteboardController {
                                 model.undo();
                             else if (m.control == Message.ControlType.REDO)
                                 model.redo();
+                            else if (m.control == Message.ControlType.COMPACT)
+                                compactInBackground(m.targetActionId);
                             refreshView();
                             break;
                         case NOTIFICATION:
@@ -94,6 +108,49 @@ public class WhiteboardController {
         reader.start();
     }
 
+    private void startPresence(String host, int port) {
+        try {
+            presence = new PresenceClient(host, port, username);
+        } catch (Exception ex) {
+            appendChat("[error] presence unavailable: " + ex.getMessage());
+            return;
+        }
+        presence.start(states -> {
+            for (PresenceState s : states) {
+                PresenceState old = peers.get(s.userId);
+                if (old == null || s.seq > old.seq)
+                    peers.put(s.userId, s);
+            }
+            refreshPeers();
+        });
+        // peers that stop sending (left, or packets lost) fade out
+        new Timer(1000, e -> refreshPeers()).start();
+    }
+
+    private void updatePresence(Point p, boolean onCanvas) {
+        if (presence != null)
+            presence.update(p.x, p.y, onCanvas, startPoint != null, currentTool, currentColor.getRGB());
+    }
+
+    // Rasterizing takes long enough that doing it under the model lock, or on
+    // this reader thread, would stall painting and incoming messages.
+    private void compactInBackground(UUID lastId) {
+        CanvasCheckpoint base;
+        ArrayList<DrawAction> old;
+        synchronized (model) {
+            base = model.getCheckpoint();
+            old = model.actionsThrough(lastId);
+        }
+        if (old == null)
+            return;
+        Thread t = new Thread(() -> {
+            if (model.applyCompaction(base, old, CanvasCheckpoint.compact(base, old)))
+                refreshView();
+        }, "compaction");
+        t.setDaemon(true);
+        t.start();
+    }
+
     private void wireView() {
         view.sendBtn.addActionListener(e -> sendChat());
         view.chatInput.addActionListener(e -> sendChat());
@@ -119,6 +176,11 @@ public class WhiteboardController {
                 startPoint = e.getPoint();
                 tempPoints.clear();
                 tempPoints.add(startPoint);
+                updatePresence(e.getPoint(), true);
+            }
+
+            public void mouseExited(MouseEvent e) {
+                updatePresence(e.getPoint(), false);
             }
 
             public void mouseReleased(MouseEvent e) {
@@ -139,32 +201,43 @@ public class WhiteboardController {
                         action = DrawAction.circle(startPoint.x, startPoint.y, end.x, end.y, currentColor,
                                 currentStroke);
                 }
+                model.removePending(preview);
+                preview = null;
                 if (action != null) {
-                    model.addAction(action);
-                    refreshView();
+                    // same clamp the server applies, so both sides hold identical geometry
+                    action.clampTo(CanvasCheckpoint.BOARD_WIDTH, CanvasCheckpoint.BOARD_HEIGHT);
+                    model.addPending(action);
                     sendDraw(action);
                 }
+                refreshView();
                 tempPoints = new ArrayList<>();
                 startPoint = null;
+                updatePresence(end, true);
             }
         });
 
         canvas.addMouseMotionListener(new MouseMotionAdapter() {
+            public void mouseMoved(MouseEvent e) {
+                updatePresence(e.getPoint(), true);
+            }
+
             public void mouseDragged(MouseEvent e) {
+                updatePresence(e.getPoint(), true);
                 if (currentTool == DrawAction.ActionType.FREEHAND || currentTool == DrawAction.ActionType.ERASER) {
                     Point p = e.getPoint();
                     tempPoints.add(p);
                     // show intermediate line locally for immediate feedback
-                    model.addAction(new DrawAction() {
+                    model.removePending(preview);
+                    preview = new DrawAction() {
                         {
                             actionType = DrawAction.ActionType.FREEHAND;
                             points = new ArrayList<>(tempPoints);
                             color = currentTool == DrawAction.ActionType.ERASER ? Color.WHITE : currentColor;
                             strokeWidth = currentStroke;
                         }
-                    });
+                    };
+                    model.addPending(preview);
                     refreshView();
-                    model.undo();
                 }
             }
         });
@@ -178,10 +251,20 @@ public class WhiteboardController {
 
     private void refreshView() {
         SwingUtilities.invokeLater(() -> {
+            view.canvas.setCheckpoint(model.getCheckpoint());
             view.canvas.setActions(model.getActionsCopy());
         });
     }
 
+    private void refreshPeers() {
+        long now = System.currentTimeMillis();
+        peers.values().removeIf(s -> now - s.receivedAt > PEER_EXPIRE_MS);
+        ArrayList<PresenceState> visible = new ArrayList<>(peers.values());
+        SwingUtilities.invokeLater(() -> {
+            view.canvas.setPeers(visible);
+        });
+    }
+
     private void sendChat() {
         String text = view.chatInput.getText().trim();
         if (text.isEmpty())
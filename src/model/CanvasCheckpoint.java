@@ -0,0 +1,187 @@
+package model;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Rasterized base layer for actions that are older than the undo horizon.
+ * The board is cut into fixed-size tiles; tiles that end up plain white
+ * (nothing drawn, or everything erased) are not kept at all. Compaction
+ * produces pixel tiles, which is all a client needs; the server encodes them
+ * to PNG once with {@link #encodeTiles} before sending them to joiners.
+ */
+public class CanvasCheckpoint implements Serializable {
+
+    public static final int TILE_SIZE = 256;
+    // actions are clamped to this extent, which bounds the cost of a compaction
+    public static final int BOARD_WIDTH = 2048;
+    public static final int BOARD_HEIGHT = 1536;
+    private static final Rectangle BOARD = new Rectangle(0, 0, BOARD_WIDTH, BOARD_HEIGHT);
+
+    // tile coordinates (x, y in units of TILE_SIZE) of every non-blank tile;
+    // each one has pixels, PNG bytes, or both
+    private final HashSet<Point> keys;
+    private final HashMap<Point, byte[]> tiles;
+    private transient HashMap<Point, BufferedImage> images;
+
+    private CanvasCheckpoint(HashSet<Point> keys, HashMap<Point, byte[]> tiles, HashMap<Point, BufferedImage> images) {
+        this.keys = keys;
+        this.tiles = tiles;
+        this.images = images;
+    }
+
+    /**
+     * Returns a new checkpoint with the given actions painted, in order, on top
+     * of {@code base} (which may be null). Tiles the actions do not touch are
+     * shared with {@code base}. Only {@code base}'s own lock is taken, briefly,
+     * so callers should run this outside the server and model locks.
+     */
+    public static CanvasCheckpoint compact(CanvasCheckpoint base, List<DrawAction> actions) {
+        HashSet<Point> keys = new HashSet<>();
+        HashMap<Point, byte[]> tiles = new HashMap<>();
+        HashMap<Point, BufferedImage> images = new HashMap<>();
+        if (base != null)
+            base.copyInto(keys, tiles, images);
+
+        HashSet<Point> dirty = new HashSet<>();
+        int maxTx = -1, maxTy = -1;
+        for (DrawAction a : actions) {
+            Rectangle r = a.getBounds().intersection(BOARD);
+            if (r.isEmpty())
+                continue;
+            int tx1 = (r.x + r.width - 1) / TILE_SIZE, ty1 = (r.y + r.height - 1) / TILE_SIZE;
+            for (int ty = r.y / TILE_SIZE; ty <= ty1; ty++)
+                for (int tx = r.x / TILE_SIZE; tx <= tx1; tx++)
+                    dirty.add(new Point(tx, ty));
+            maxTx = Math.max(maxTx, tx1);
+            maxTy = Math.max(maxTy, ty1);
+        }
+        if (dirty.isEmpty())
+            return new CanvasCheckpoint(keys, tiles, images);
+
+        // Draw at board coordinates into one image anchored at the origin, exactly
+        // as the view does, then slice it; per-tile translation shifts outlines.
+        BufferedImage board = new BufferedImage((maxTx + 1) * TILE_SIZE, (maxTy + 1) * TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = board.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, board.getWidth(), board.getHeight());
+        for (Point key : dirty)
+            if (keys.contains(key))
+                g.drawImage(base.getTile(key), key.x * TILE_SIZE, key.y * TILE_SIZE, null);
+        for (DrawAction a : actions)
+            a.draw(g);
+        g.dispose();
+
+        for (Point key : dirty) {
+            BufferedImage slice = board.getSubimage(key.x * TILE_SIZE, key.y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+            tiles.remove(key);
+            images.remove(key);
+            if (isBlank(slice)) {
+                keys.remove(key);
+                continue;
+            }
+            // copy out so the tile does not keep the whole board image alive
+            BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            Graphics2D tg = tile.createGraphics();
+            tg.drawImage(slice, 0, 0, null);
+            tg.dispose();
+            keys.add(key);
+            images.put(key, tile);
+        }
+        return new CanvasCheckpoint(keys, tiles, images);
+    }
+
+    /** PNG-encodes any tile that is only held as pixels, then drops the pixels. */
+    public synchronized void encodeTiles() {
+        encodeMissing();
+        images = null;
+    }
+
+    public synchronized int getTileCount() {
+        return keys.size();
+    }
+
+    public synchronized long getByteSize() {
+        long total = 0;
+        for (byte[] b : tiles.values())
+            total += b.length;
+        return total;
+    }
+
+    /** Paints all tiles that intersect the current clip. */
+    public void paint(Graphics2D g) {
+        Rectangle clip = g.getClipBounds();
+        for (Point key : keys) {
+            int x = key.x * TILE_SIZE, y = key.y * TILE_SIZE;
+            if (clip != null && !clip.intersects(x, y, TILE_SIZE, TILE_SIZE))
+                continue;
+            g.drawImage(getTile(key), x, y, null);
+        }
+    }
+
+    private synchronized void copyInto(HashSet<Point> k, HashMap<Point, byte[]> t, HashMap<Point, BufferedImage> i) {
+        k.addAll(keys);
+        t.putAll(tiles);
+        if (images != null)
+            i.putAll(images);
+    }
+
+    private synchronized BufferedImage getTile(Point key) {
+        if (images == null)
+            images = new HashMap<>();
+        BufferedImage img = images.get(key);
+        if (img == null) {
+            byte[] png = tiles.get(key);
+            if (png == null)
+                return null;
+            try {
+                img = ImageIO.read(new ByteArrayInputStream(png));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            images.put(key, img);
+        }
+        return img;
+    }
+
+    private void encodeMissing() {
+        for (Point key : keys)
+            if (!tiles.containsKey(key))
+                tiles.put(key, encode(images.get(key)));
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        encodeMissing();
+        out.defaultWriteObject();
+    }
+
+    private static boolean isBlank(BufferedImage img) {
+        int white = Color.WHITE.getRGB();
+        for (int y = 0; y < img.getHeight(); y++)
+            for (int x = 0; x < img.getWidth(); x++)
+                if (img.getRGB(x, y) != white)
+                    return false;
+        return true;
+    }
+
+    private static byte[] encode(BufferedImage img) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(img, "png", bos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bos.toByteArray();
+    }
+}
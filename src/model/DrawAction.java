@@ -20,6 +20,8 @@ public class DrawAction implements Serializable {
 
     public final UUID actionId = UUID.randomUUID();
 
+    public static final float MAX_STROKE = 64f;
+
     public DrawAction() {
         this.points = new ArrayList<>();
         this.color = Color.BLACK;
@@ -79,4 +81,74 @@ public class DrawAction implements Serializable {
         a.strokeWidth = w;
         return a;
     }
+
+    // Keeps client-supplied geometry on the board so nobody can make the server
+    // rasterize an unbounded area. Returns false if the action is not drawable.
+    public boolean clampTo(int width, int height) {
+        if (actionType == null || points == null || points.contains(null))
+            return false;
+        if (color == null)
+            color = Color.BLACK;
+        if (!(strokeWidth >= 0.5f))
+            strokeWidth = 0.5f;
+        strokeWidth = Math.min(strokeWidth, MAX_STROKE);
+        for (Point p : points) {
+            p.x = clamp(p.x, width);
+            p.y = clamp(p.y, height);
+        }
+        x1 = clamp(x1, width);
+        y1 = clamp(y1, height);
+        x2 = clamp(x2, width);
+        y2 = clamp(y2, height);
+        return true;
+    }
+
+    private static int clamp(int v, int size) {
+        return Math.max(0, Math.min(size - 1, v));
+    }
+
+    public Rectangle getBounds() {
+        Rectangle r;
+        if (actionType == ActionType.FREEHAND || actionType == ActionType.ERASER) {
+            if (points.isEmpty())
+                return new Rectangle();
+            r = new Rectangle(points.get(0));
+            for (Point p : points)
+                r.add(p);
+        } else {
+            r = new Rectangle(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+        }
+        // pad by the stroke so thick lines and square caps are fully covered
+        int pad = (int) Math.ceil(strokeWidth) + 1;
+        r.grow(pad, pad);
+        return r;
+    }
+
+    public void draw(Graphics2D g) {
+        g.setStroke(new BasicStroke(strokeWidth));
+        g.setColor(color);
+        switch (actionType) {
+            case FREEHAND:
+            case ERASER:
+                for (int i = 1; i < points.size(); i++) {
+                    Point p1 = points.get(i - 1);
+                    Point p2 = points.get(i);
+                    g.drawLine(p1.x, p1.y, p2.x, p2.y);
+                }
+                break;
+            case LINE:
+                g.drawLine(x1, y1, x2, y2);
+                break;
+            case RECT:
+                int rx = Math.min(x1, x2), ry = Math.min(y1, y2);
+                int rw = Math.abs(x2 - x1), rh = Math.abs(y2 - y1);
+                g.drawRect(rx, ry, rw, rh);
+                break;
+            case CIRCLE:
+                int cx = Math.min(x1, x2), cy = Math.min(y1, y2);
+                int cw = Math.abs(x2 - x1), ch = Math.abs(y2 - y1);
+                g.drawOval(cx, cy, cw, ch);
+                break;
+        }
+    }
 }
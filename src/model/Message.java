@@ -11,7 +11,7 @@ public class Message implements Serializable {
     }
 
     public enum ControlType {
-        UNDO, REDO, CLEAR
+        UNDO, REDO, CLEAR, COMPACT
     }
 
     public MessageType type;
@@ -19,8 +19,10 @@ public class Message implements Serializable {
     public String text;
     public DrawAction drawAction;
     public ArrayList<DrawAction> canvasSnapshot;
+    public CanvasCheckpoint checkpoint;
     public ControlType control;
     public UUID targetActionId;
+    public long presenceToken;
 
     public Message(MessageType t) {
         this.type = t;
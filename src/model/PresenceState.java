@@ -0,0 +1,52 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Latest cursor/tool state of one user. Sent over the presence datagram
+ * channel rather than as a {@link Message}, so it is written field by field
+ * to keep packets small.
+ */
+public class PresenceState {
+
+    public String userId;
+    // ordering stamp set by the sender; older arrivals are ignored
+    public long seq;
+    public int x, y;
+    public boolean onCanvas;
+    public boolean drawing;
+    public DrawAction.ActionType tool = DrawAction.ActionType.FREEHAND;
+    public int color;
+
+    // local receive time, not sent
+    public long receivedAt;
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeUTF(userId);
+        out.writeLong(seq);
+        out.writeShort(x);
+        out.writeShort(y);
+        out.writeByte((onCanvas ? 1 : 0) | (drawing ? 2 : 0));
+        out.writeByte(tool.ordinal());
+        out.writeInt(color);
+    }
+
+    public static PresenceState read(DataInputStream in) throws IOException {
+        PresenceState p = new PresenceState();
+        p.userId = in.readUTF();
+        p.seq = in.readLong();
+        p.x = in.readShort();
+        p.y = in.readShort();
+        int flags = in.readByte();
+        p.onCanvas = (flags & 1) != 0;
+        p.drawing = (flags & 2) != 0;
+        int tool = in.readByte();
+        if (tool < 0 || tool >= DrawAction.ActionType.values().length)
+            throw new IOException("bad tool " + tool);
+        p.tool = DrawAction.ActionType.values()[tool];
+        p.color = in.readInt();
+        return p;
+    }
+}
@@ -6,14 +6,28 @@ public class WhiteboardModel {
     private final ArrayList<DrawAction> actions = new ArrayList<>();
     private final Stack<DrawAction> undoStack = new Stack<>();
     private final Stack<DrawAction> redoStack = new Stack<>();
+    // our own actions, drawn right away but not part of actions until the
+    // server echoes them back, so actions always follows the server's order
+    private final ArrayList<DrawAction> pending = new ArrayList<>();
+    private CanvasCheckpoint checkpoint;
+
+    public synchronized void addPending(DrawAction a) {
+        pending.add(a);
+    }
+
+    public synchronized void removePending(DrawAction a) {
+        pending.remove(a);
+    }
 
     public synchronized void addAction(DrawAction a) {
+        pending.removeIf(p -> p.actionId.equals(a.actionId));
         actions.add(a);
         undoStack.push(a);
         redoStack.clear();
     }
 
-    public synchronized void setSnapshot(ArrayList<DrawAction> snap) {
+    public synchronized void setSnapshot(ArrayList<DrawAction> snap, CanvasCheckpoint cp) {
+        checkpoint = cp;
         actions.clear();
         actions.addAll(snap);
         undoStack.clear();
@@ -23,10 +37,40 @@ public class WhiteboardModel {
     }
 
     public synchronized ArrayList<DrawAction> getActionsCopy() {
-        return new ArrayList<>(actions);
+        ArrayList<DrawAction> copy = new ArrayList<>(actions);
+        copy.addAll(pending);
+        return copy;
+    }
+
+    public synchronized CanvasCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    // Copy of the actions up to and including lastId, mirroring the cut of a
+    // server compaction; null if we do not hold that action.
+    public synchronized ArrayList<DrawAction> actionsThrough(UUID lastId) {
+        for (int i = 0; i < actions.size(); i++)
+            if (actions.get(i).actionId.equals(lastId))
+                return new ArrayList<>(actions.subList(0, i + 1));
+        return null;
+    }
+
+    // Swaps in a checkpoint built from base and old outside the lock. Refused if
+    // a clear, snapshot or undo changed either one meanwhile.
+    public synchronized boolean applyCompaction(CanvasCheckpoint base, List<DrawAction> old, CanvasCheckpoint cp) {
+        if (checkpoint != base || actions.size() < old.size())
+            return false;
+        for (int i = 0; i < old.size(); i++)
+            if (actions.get(i) != old.get(i))
+                return false;
+        checkpoint = cp;
+        actions.subList(0, old.size()).clear();
+        undoStack.removeAll(old);
+        return true;
     }
 
     public synchronized void clear() {
+        checkpoint = null;
         actions.clear();
         undoStack.clear();
         redoStack.clear();
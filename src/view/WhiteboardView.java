@@ -2,7 +2,9 @@ package view;
 
 import javax.swing.*;
 
+import model.CanvasCheckpoint;
 import model.DrawAction;
+import model.PresenceState;
 
 import java.awt.*;
 import java.util.ArrayList;
@@ -64,11 +66,30 @@ public class WhiteboardView extends JFrame {
 
     public static class DrawCanvas extends JPanel {
         private ArrayList<DrawAction> actions = new ArrayList<>();
+        private CanvasCheckpoint checkpoint;
+        private ArrayList<PresenceState> peers = new ArrayList<>();
 
         public DrawCanvas() {
             setBackground(Color.WHITE);
         }
 
+        public void setCheckpoint(CanvasCheckpoint cp) {
+            this.checkpoint = cp;
+        }
+
+        // Cursors move many times a second, so only the areas they leave and
+        // enter are repainted, not the whole board.
+        public void setPeers(ArrayList<PresenceState> p) {
+            ArrayList<PresenceState> old = this.peers;
+            this.peers = p;
+            for (PresenceState s : old)
+                if (s.onCanvas)
+                    repaint(cursorBounds(s));
+            for (PresenceState s : p)
+                if (s.onCanvas)
+                    repaint(cursorBounds(s));
+        }
+
         public void setActions(ArrayList<DrawAction> a) {
             this.actions = a;
             repaint();
@@ -78,33 +99,34 @@ public class WhiteboardView extends JFrame {
         protected void paintComponent(Graphics g0) {
             super.paintComponent(g0);
             Graphics2D g = (Graphics2D) g0;
-            for (DrawAction a : actions) {
-                g.setStroke(new BasicStroke(a.strokeWidth));
-                g.setColor(a.color);
-                switch (a.actionType) {
-                    case FREEHAND:
-                    case ERASER:
-                        for (int i = 1; i < a.points.size(); i++) {
-                            Point p1 = a.points.get(i - 1);
-                            Point p2 = a.points.get(i);
-                            g.drawLine(p1.x, p1.y, p2.x, p2.y);
-                        }
-                        break;
-                    case LINE:
-                        g.drawLine(a.x1, a.y1, a.x2, a.y2);
-                        break;
-                    case RECT:
-                        int rx = Math.min(a.x1, a.x2), ry = Math.min(a.y1, a.y2);
-                        int rw = Math.abs(a.x2 - a.x1), rh = Math.abs(a.y2 - a.y1);
-                        g.drawRect(rx, ry, rw, rh);
-                        break;
-                    case CIRCLE:
-                        int cx = Math.min(a.x1, a.x2), cy = Math.min(a.y1, a.y2);
-                        int cw = Math.abs(a.x2 - a.x1), ch = Math.abs(a.y2 - a.y1);
-                        g.drawOval(cx, cy, cw, ch);
-                        break;
-                }
+            if (checkpoint != null)
+                checkpoint.paint(g);
+            Rectangle clip = g.getClipBounds();
+            for (DrawAction a : actions)
+                if (clip == null || clip.intersects(a.getBounds()))
+                    a.draw(g);
+            g.setStroke(new BasicStroke(1));
+            for (PresenceState p : peers) {
+                if (!p.onCanvas)
+                    continue;
+                g.setColor(new Color(p.color));
+                g.fillOval(p.x - 4, p.y - 4, 8, 8);
+                g.setColor(Color.DARK_GRAY);
+                g.drawOval(p.x - 4, p.y - 4, 8, 8);
+                g.drawString(cursorLabel(p), p.x + 8, p.y - 6);
             }
         }
+
+        private static String cursorLabel(PresenceState p) {
+            return p.drawing ? p.userId + " (" + p.tool.name().toLowerCase() + ")" : p.userId;
+        }
+
+        private Rectangle cursorBounds(PresenceState p) {
+            FontMetrics fm = getFontMetrics(getFont());
+            int top = Math.min(p.y - 5, p.y - 6 - fm.getAscent());
+            int right = p.x + 8 + fm.stringWidth(cursorLabel(p));
+            int bottom = Math.max(p.y + 5, p.y - 6 + fm.getDescent());
+            return new Rectangle(p.x - 5, top, right - (p.x - 5) + 1, bottom - top + 1);
+        }
     }
 }